@@ -4,11 +4,8 @@
  * Client.java
  */
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-
-import java.net.Socket;
+import java.io.InputStream;
 
 import java.util.Scanner;
 
@@ -19,7 +16,7 @@ import java.util.Scanner;
  */
 public class Client implements Runnable {
 
-    private Socket socket;
+    private Connection connection;
     private Scanner scanner;
     private ServerHandler handler;
     private Thread thread;
@@ -27,39 +24,63 @@ public class Client implements Runnable {
     /**
      * Constructs a new instance of the client and attempts to connect to the
      * server.
+     * 
+     * @param compress A flag indicating whether to request compression from
+     * the server.
      */
-    public Client() {
-        this.scanner = new Scanner(System.in);
+    public Client(boolean compress) {
+        this(openConnection(), System.in, compress);
+    }
+
+    /**
+     * Constructs a new instance of the client over an already opened
+     * {@code connection}, reading the client's messages from {@code input}.
+     * 
+     * @param connection The connection to the server.
+     * @param input      The stream the client's messages are typed into.
+     * @param compress   A flag indicating whether to request compression from
+     * the server.
+     */
+    public Client(Connection connection, InputStream input, boolean compress) {
+        this.scanner = new Scanner(input);
+        this.connection = connection;
+        this.handler = new ServerHandler(connection, compress);
+        this.thread = new Thread(handler);
+
+        thread.start();
+    }
 
+    /**
+     * Connects to the server on port 6666. The program exits if the server is
+     * not open.
+     * 
+     * @return The connection to the server.
+     */
+    private static Connection openConnection() {
         try {
-            this.socket = new Socket("localhost", 6666);
+            return new SocketConnection("localhost", 6666);
         } catch (IOException e) {
             System.out.println("server not open");
-            close();
             System.exit(0);
+            return null;
         }
-        
-        this.handler = new ServerHandler(socket);
-        this.thread = new Thread(handler);
-
-        thread.start();
     }
 
     /**
-     * Actively listens for any input via {@code System.in} from the client.
+     * Actively listens for any input from the client.
      * <p>
      * Upon <enter> is pressed, the message will be sent to the server via
-     * the server handler class.
+     * the server handler class. This terminates at the end of the input.
      */
     @Override
     public void run() {
-        while (!socket.isClosed()) {
+        while (!connection.isClosed() && scanner.hasNextLine()) {
             final String message = scanner.nextLine();
             
             try {
                 handler.sendMessage(message);
             } catch (IOException e) {
-                System.err.printf("failed to send message to server: \"%s\"\n", message);
+                System.err.printf("failed to send message to server: %s\n", e.getMessage());
             }
 
             if (message.equals("/quit")) {
@@ -71,18 +92,21 @@ public class Client implements Runnable {
     }
 
     /**
-     * Closes the socket and scanner used by the client.
+     * Closes the connection, codec and scanner used by the client.
      */
     private void close() {
-        if (socket != null && !socket.isClosed()) {
+        if (connection != null && !connection.isClosed()) {
             try {
-                socket.close();
+                connection.close();
             } catch (IOException e) {
-                System.err.println("failed to close socket");
+                System.err.println("failed to close connection");
                 System.exit(1);
             }
         }
 
+        if (handler != null && handler.codec != null) {
+            handler.codec.close();
+        }
         scanner.close();
     }
 
@@ -95,20 +119,20 @@ public class Client implements Runnable {
      */
     private class ServerHandler implements Runnable {
         
-        DataInputStream input;
-        DataOutputStream output;
+        MessageCodec codec;
 
         /**
-         * Constructs a new instance of the {@code ServerHandler}.
+         * Constructs a new instance of the {@code ServerHandler} and
+         * negotiates compression with the server.
          * 
-         * @param socket The socket opened by the client.
+         * @param connection The connection opened by the client.
+         * @param compress   A flag indicating whether to request compression.
          */
-        public ServerHandler(Socket socket) {
+        public ServerHandler(Connection connection, boolean compress) {
             try {
-                this.input = new DataInputStream(socket.getInputStream());
-                this.output = new DataOutputStream(socket.getOutputStream());
+                this.codec = MessageCodec.connect(connection.getInputStream(), connection.getOutputStream(), compress);
             } catch (IOException e) {
-                System.err.println("failed opening I/O streams from socket");
+                System.err.println("failed opening I/O streams from connection");
                 close();
             }
         }
@@ -121,8 +145,8 @@ public class Client implements Runnable {
          * @throws IOException - If and I/O error occurs.
          */
         public void sendMessage(String message) throws IOException {
-            if (!socket.isClosed()) {
-                output.writeUTF(message);
+            if (!connection.isClosed()) {
+                codec.writeMessage(message);
             }
         }
 
@@ -131,24 +155,26 @@ public class Client implements Runnable {
          * <p>
          * Upon message recieved, the message is printed to {@code System.out}.
          * <p>
-         * This function will terminate if the socket is closed.
+         * This function will terminate if the connection is closed. Reading
+         * blocks until a message arrives rather than polling.
          */
         @Override
         public void run() {
-            while (!socket.isClosed()) {
+            while (!connection.isClosed()) {
                 try {
-                    if (input.available() > 0) {
-                        final String message = input.readUTF();
-                        if (message.equals("/close")) {
-                            System.out.println("server closed: press [ENTER] to continue");
-                            close();
-                        } else {
-                            System.out.print(message);
-                        }
+                    final String message = codec.readMessage();
+                    if (message.equals("/close")) {
+                        System.out.println("server closed: press [ENTER] to continue");
+                        close();
+                    } else {
+                        System.out.print(message);
                     }
                 } catch (IOException e) {
-                    System.err.println("failed to read incoming bytes from server");
+                    if (!connection.isClosed()) {
+                        System.err.println("failed to read incoming bytes from server");
+                    }
                     close();
+                    return;
                 }
             }
         }
@@ -157,11 +183,14 @@ public class Client implements Runnable {
     /**
      * Main routine for the client. This serves as the entry point of the
      * client program.
+     * <p>
+     * Passing {@code --no-compress} sends all messages uncompressed.
      * 
      * @param args Arguments passed via the command-line.
      */
     public static void main(String[] args) {
-        final Client client = new Client();
+        final boolean compress = !(args.length > 0 && args[0].equals("--no-compress"));
+        final Client client = new Client(compress);
         client.run();
     }
 }
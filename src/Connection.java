@@ -0,0 +1,50 @@
+/**
+ * @author Ruan C. Keet (26340461)
+ * Connection.java
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This interface represents one end of a connection between the client and
+ * the server, independent of how the bytes are transported.
+ *
+ * @see SocketConnection
+ * @see LoopbackConnection
+ */
+public interface Connection {
+
+    /**
+     * Gets the stream of bytes coming from the other end.
+     *
+     * @return The input stream of this connection.
+     *
+     * @throws IOException - If an I/O error occurs.
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Gets the stream of bytes going to the other end.
+     *
+     * @return The output stream of this connection.
+     *
+     * @throws IOException - If an I/O error occurs.
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Checks whether this end of the connection has been closed.
+     *
+     * @return {@code true} if {@code close} has been called.
+     */
+    boolean isClosed();
+
+    /**
+     * Closes this end of the connection.
+     *
+     * @throws IOException - If an I/O error occurs.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,40 @@
+/**
+ * @author Ruan C. Keet (26340461)
+ * ConnectionListener.java
+ */
+
+import java.io.IOException;
+
+/**
+ * This interface represents the server's end for accepting connections from
+ * clients, independent of how the bytes are transported.
+ *
+ * @see SocketListener
+ * @see LoopbackListener
+ */
+public interface ConnectionListener {
+
+    /**
+     * Waits for the next client to connect.
+     *
+     * @return The server's end of the new connection.
+     *
+     * @throws IOException - If an I/O error occurs or the listener is closed.
+     */
+    Connection accept() throws IOException;
+
+    /**
+     * Checks whether this listener has been closed.
+     *
+     * @return {@code true} if {@code close} has been called.
+     */
+    boolean isClosed();
+
+    /**
+     * Closes this listener. Any thread blocked in {@code accept} is woken up
+     * with an {@code IOException}.
+     *
+     * @throws IOException - If an I/O error occurs.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,348 @@
+/**
+ * @author Ruan C. Keet (26340461)
+ * LoopbackBenchmark.java
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class drives the whole server with many simulated clients over a
+ * {@code LoopbackListener}, without any networking.
+ * <p>
+ * Clients start sending as soon as they have registered, whilst others are
+ * still joining. Halfway through its chat lines, every client also sends
+ * "/list", a "/whisper" and an unknown command. Some clients then leave
+ * mid-traffic, half with "/quit" and half by closing their end abruptly, and
+ * one client fails to register. Finally every client sends a ping. The run
+ * fails if deliveries stall before every command reply, leave message and
+ * ping has arrived, e.g. because a handler thread died or a client was
+ * dropped.
+ */
+public class LoopbackBenchmark {
+
+    private static final int QUEUE_CAPACITY = 64 * 1024; // Bytes
+    private static final long STALL_MILLIS = 10_000;
+
+    private LoopbackListener listener;
+    private Server server;
+    private List<SimulatedClient> clients;
+    private LongAdder received;
+    private LongAdder replies;
+    private LongAdder leaves;
+    private LongAdder pings;
+    private PrintStream console;
+    private boolean compress;
+
+    /**
+     * Constructs a new instance of the {@code LoopbackBenchmark} and starts
+     * its server.
+     *
+     * @param console  The stream to print results to.
+     * @param compress A flag indicating whether the clients request
+     * compression.
+     */
+    public LoopbackBenchmark(PrintStream console, boolean compress) {
+        this.listener = new LoopbackListener(QUEUE_CAPACITY);
+        this.server = new Server(listener, true);
+        this.clients = new ArrayList<SimulatedClient>();
+        this.received = new LongAdder();
+        this.replies = new LongAdder();
+        this.leaves = new LongAdder();
+        this.pings = new LongAdder();
+        this.console = console;
+        this.compress = compress;
+
+        new Thread(server).start();
+    }
+
+    /**
+     * Runs the benchmark with {@code clientCount} clients that stay until the
+     * end, each sending {@code messageCount} messages.
+     *
+     * @param clientCount  The number of simulated clients.
+     * @param messageCount The number of messages sent per client.
+     *
+     * @return {@code true} if every check passed.
+     *
+     * @throws IOException          - If an I/O error occurs.
+     * @throws InterruptedException - If interrupted whilst waiting.
+     */
+    public boolean run(int clientCount, int messageCount) throws IOException, InterruptedException {
+        final int leaverCount = Math.max(1, clientCount / 10);
+        final long expectedReplies = 3L * clientCount;
+        final long expectedLeaves = (long) clientCount * leaverCount;
+        final long expectedPings = (long) clientCount * (clientCount - 1);
+        final ExecutorService senders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            final SimulatedClient client = new SimulatedClient("user" + i, true);
+            final String whisperTo = "user" + i / 2; // already registered
+            clients.add(client);
+            senders.execute(() -> client.send(messageCount, whisperTo));
+        }
+        for (int i = 0; i < leaverCount; i++) {
+            final SimulatedClient leaver = new SimulatedClient("leaver" + i, false);
+            final boolean graceful = i % 2 == 0;
+            senders.execute(() -> {
+                leaver.send(messageCount, null);
+                leaver.leave(graceful);
+            });
+        }
+        senders.shutdown();
+        senders.awaitTermination(1, TimeUnit.HOURS);
+
+        if (!await(replies, expectedReplies)) {
+            console.printf("command replies stalled: %d of %d\n", replies.sum(), expectedReplies);
+            return false;
+        }
+        if (!await(leaves, expectedLeaves)) {
+            console.printf("leave messages stalled: %d of %d\n", leaves.sum(), expectedLeaves);
+            return false;
+        }
+        report("traffic", received.sum(), start);
+
+        if (!checkRejected()) {
+            console.println("connection of a client that failed to register was not closed");
+            return false;
+        }
+
+        start = System.nanoTime();
+        for (final SimulatedClient client : clients) {
+            client.codec.writeMessage(String.format("ping from %s", client.userName));
+        }
+        if (!await(pings, expectedPings)) {
+            console.printf("pings stalled: %d of %d\n", pings.sum(), expectedPings);
+            return false;
+        }
+        report("pings", pings.sum(), start);
+
+        server.close();
+        for (final SimulatedClient client : clients) {
+            client.reader.join(STALL_MILLIS);
+        }
+
+        return true;
+    }
+
+    /**
+     * Sends a malformed username and checks that the server closes the
+     * connection instead of leaving the client waiting.
+     *
+     * @return {@code true} if the connection was closed in time.
+     *
+     * @throws IOException          - If an I/O error occurs.
+     * @throws InterruptedException - If interrupted whilst waiting.
+     */
+    private boolean checkRejected() throws IOException, InterruptedException {
+        final LoopbackConnection connection = listener.connect();
+        final MessageCodec codec = MessageCodec.connect(connection.getInputStream(), connection.getOutputStream(), compress);
+        codec.readMessage(); // username prompt
+
+        connection.getOutputStream().write(new byte[] { 0x7F, 0, 0, 0, 0 }); // unknown frame type
+
+        final Thread waiter = new Thread(() -> {
+            try {
+                codec.readMessage();
+            } catch (IOException e) {
+                // expected: the server closed the connection
+            }
+        });
+        waiter.setDaemon(true);
+        waiter.start();
+        waiter.join(STALL_MILLIS);
+
+        final boolean closed = !waiter.isAlive();
+        connection.close();
+
+        return closed;
+    }
+
+    /**
+     * Waits until {@code counter} reaches {@code expected}.
+     *
+     * @param counter  The counter to watch.
+     * @param expected The count to wait for.
+     *
+     * @return {@code true} if the count was reached, {@code false} if no
+     * message arrived for {@code STALL_MILLIS}.
+     *
+     * @throws InterruptedException - If interrupted whilst waiting.
+     */
+    private boolean await(LongAdder counter, long expected) throws InterruptedException {
+        long last = received.sum();
+        long deadline = System.currentTimeMillis() + STALL_MILLIS;
+        while (counter.sum() < expected) {
+            Thread.sleep(1);
+
+            final long current = received.sum();
+            if (current != last) {
+                last = current;
+                deadline = System.currentTimeMillis() + STALL_MILLIS;
+            } else if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Prints how many messages were delivered since {@code start}.
+     *
+     * @param stage The name of the stage measured.
+     * @param count The number of messages delivered.
+     * @param start The {@code System.nanoTime()} at which the stage started.
+     */
+    private void report(String stage, long count, long start) {
+        final long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        console.printf("%s: %d messages delivered in %d ms (%d/s)\n", stage, count, millis, count * 1000 / millis);
+    }
+
+    /**
+     * This class is a simulated client talking to the server through a
+     * {@code LoopbackConnection}.
+     */
+    private class SimulatedClient {
+
+        private String userName;
+        private LoopbackConnection connection;
+        private MessageCodec codec;
+        private Thread reader;
+
+        /**
+         * Constructs a new instance of a {@code SimulatedClient}, connects it
+         * and registers it. A reader thread then drains every message the
+         * client receives until the server closes it.
+         *
+         * @param userName The username of the client.
+         * @param counted  A flag indicating whether received messages are
+         * counted.
+         *
+         * @throws IOException - If an I/O error occurs.
+         */
+        public SimulatedClient(String userName, boolean counted) throws IOException {
+            this.userName = userName;
+            this.connection = listener.connect();
+            this.codec = MessageCodec.connect(connection.getInputStream(), connection.getOutputStream(), compress);
+
+            codec.readMessage(); // username prompt
+            codec.writeMessage(userName);
+
+            this.reader = new Thread(() -> receive(counted));
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Sends {@code messageCount} chat messages to the server. Halfway
+         * through, "/list", a "/whisper" to {@code whisperTo} and an unknown
+         * command are sent as well, unless {@code whisperTo} is {@code null}.
+         *
+         * @param messageCount The number of chat messages to send.
+         * @param whisperTo    The username to whisper to, or {@code null} to
+         * send no commands.
+         */
+        public void send(int messageCount, String whisperTo) {
+            try {
+                for (int i = 0; i < messageCount; i++) {
+                    if (whisperTo != null && i == messageCount / 2) {
+                        codec.writeMessage("/list");
+                        codec.writeMessage(String.format("/whisper %s psst from %s", whisperTo, userName));
+                        codec.writeMessage("/dance");
+                    }
+                    codec.writeMessage(String.format("message %d from %s to everyone in the room", i, userName));
+                }
+            } catch (IOException e) {
+                System.err.printf("%s failed to send its messages\n", userName);
+            }
+        }
+
+        /**
+         * Leaves the chat.
+         *
+         * @param graceful A flag indicating whether to leave with "/quit"
+         * rather than closing the connection abruptly.
+         */
+        public void leave(boolean graceful) {
+            if (graceful) {
+                try {
+                    codec.writeMessage("/quit");
+                    return;
+                } catch (IOException e) {
+                    System.err.printf("%s failed to quit\n", userName);
+                }
+            }
+
+            connection.close();
+        }
+
+        /**
+         * Reads messages until the server sends "/close" or the connection
+         * is closed.
+         *
+         * @param counted A flag indicating whether to count the messages.
+         */
+        private void receive(boolean counted) {
+            try {
+                String message;
+                while (!(message = codec.readMessage()).equals("/close")) {
+                    if (!counted) {
+                        continue;
+                    }
+
+                    received.increment();
+                    if (message.contains("]: ping from ")) {
+                        pings.increment();
+                    } else if (message.startsWith("connected users: ") || message.startsWith("unknown command: ")
+                            || message.contains(" has whispered: ")) {
+                        replies.increment();
+                    } else if (message.contains("leaver") && message.contains(" has left the chat")) {
+                        leaves.increment();
+                    }
+                }
+            } catch (IOException e) {
+                if (counted) {
+                    System.err.printf("%s stopped receiving messages\n", userName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Main routine for the benchmark.
+     * <p>
+     * Usage: {@code LoopbackBenchmark [clients] [messages] [--no-compress]}.
+     * The server's own console output is discarded so that it is not part
+     * of the measurement. The program exits with status 1 if any check
+     * failed.
+     *
+     * @param args Arguments passed via the command-line.
+     *
+     * @throws Exception - If the benchmark could not be run.
+     */
+    public static void main(String[] args) throws Exception {
+        final int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int messageCount = args.length > 1 ? Math.max(1, Integer.parseInt(args[1])) : 5;
+        final boolean compress = !(args.length > 2 && args[2].equals("--no-compress"));
+
+        final PrintStream console = System.out;
+        console.printf("%d clients, %d messages each, compression %s\n", clientCount, messageCount, compress ? "on" : "off");
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        final LoopbackBenchmark benchmark = new LoopbackBenchmark(console, compress);
+        final boolean passed = benchmark.run(clientCount, messageCount);
+
+        console.println(passed ? "passed" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * @author Ruan C. Keet (26340461)
+ * LoopbackConnection.java
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This class is a {@code Connection} between two ends within the same JVM.
+ * <p>
+ * Each direction is an {@code SpscByteQueue}, so one thread at a time may
+ * read from an end and one thread at a time may write to it. The locks in
+ * {@code MessageCodec} already guarantee this.
+ * <p>
+ * Closing either end closes both directions: the other end can still read
+ * what was sent before, after which it sees the end of the stream.
+ *
+ * @see Connection
+ * @see SpscByteQueue
+ */
+public class LoopbackConnection implements Connection {
+
+    private SpscByteQueue incoming;
+    private SpscByteQueue outgoing;
+    private LoopbackConnection peer;
+    private InputStream input;
+    private OutputStream output;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new instance of the {@code LoopbackConnection} along with
+     * its peer at the other end.
+     *
+     * @param capacity The number of bytes buffered in each direction.
+     */
+    public LoopbackConnection(int capacity) {
+        this(new SpscByteQueue(capacity), new SpscByteQueue(capacity));
+        this.peer = new LoopbackConnection(outgoing, incoming);
+        peer.peer = this;
+    }
+
+    /**
+     * Constructs one end of a {@code LoopbackConnection}.
+     *
+     * @param incoming The queue this end reads from.
+     * @param outgoing The queue this end writes to.
+     */
+    private LoopbackConnection(SpscByteQueue incoming, SpscByteQueue outgoing) {
+        this.incoming = incoming;
+        this.outgoing = outgoing;
+        this.input = new QueueInputStream();
+        this.output = new QueueOutputStream();
+        this.closed = false;
+    }
+
+    /**
+     * Gets the other end of this connection.
+     *
+     * @return The peer of this connection.
+     */
+    public LoopbackConnection getPeer() {
+        return peer;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        incoming.close();
+        outgoing.close();
+    }
+
+    /**
+     * This class reads the bytes sent by the peer.
+     *
+     * @see InputStream
+     */
+    private class QueueInputStream extends InputStream {
+
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("connection closed");
+            }
+
+            final int count = incoming.read(b, off, len);
+            if (count < 0 && closed) {
+                throw new IOException("connection closed");
+            }
+
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed) {
+                throw new IOException("connection closed");
+            }
+
+            return incoming.available();
+        }
+    }
+
+    /**
+     * This class sends bytes to the peer.
+     *
+     * @see OutputStream
+     */
+    private class QueueOutputStream extends OutputStream {
+
+        private final byte[] single = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("connection closed");
+            }
+
+            outgoing.write(b, off, len);
+        }
+    }
+}
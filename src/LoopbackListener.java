@@ -0,0 +1,95 @@
+/**
+ * @author Ruan C. Keet (26340461)
+ * LoopbackListener.java
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * This class is a {@code ConnectionListener} for clients within the same
+ * JVM. Clients connect with {@code connect} instead of opening a socket.
+ * <p>
+ * This allows the whole server to be run without any networking, e.g. to
+ * measure its own CPU cost with many simulated clients.
+ *
+ * @see ConnectionListener
+ * @see LoopbackConnection
+ */
+public class LoopbackListener implements ConnectionListener {
+
+    private static final LoopbackConnection CLOSED = new LoopbackConnection(1);
+
+    private LinkedBlockingQueue<LoopbackConnection> pending;
+    private int capacity;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new instance of the {@code LoopbackListener}.
+     *
+     * @param capacity The number of bytes buffered in each direction of every
+     * connection.
+     */
+    public LoopbackListener(int capacity) {
+        this.pending = new LinkedBlockingQueue<LoopbackConnection>();
+        this.capacity = capacity;
+        this.closed = false;
+    }
+
+    /**
+     * Connects a new client to the server.
+     *
+     * @return The client's end of the connection.
+     *
+     * @throws IOException - If the listener is closed.
+     */
+    public synchronized LoopbackConnection connect() throws IOException {
+        if (closed) {
+            throw new IOException("listener closed");
+        }
+
+        final LoopbackConnection connection = new LoopbackConnection(capacity);
+        pending.add(connection.getPeer());
+
+        return connection;
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        final LoopbackConnection connection;
+        try {
+            connection = pending.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted whilst accepting");
+        }
+
+        if (connection == CLOSED) {
+            pending.add(CLOSED); // wake any other accepting thread
+            throw new IOException("listener closed");
+        }
+
+        return connection;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        for (final LoopbackConnection connection : pending) {
+            connection.close();
+        }
+        pending.clear();
+        pending.add(CLOSED);
+    }
+}
@@ -0,0 +1,377 @@
+/**
+ * @author Ruan C. Keet (26340461)
+ * MessageCodec.java
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class reads and writes the messages sent between the client and the
+ * server.
+ * <p>
+ * Every message is sent as a frame: a flag byte, the length of the message
+ * in bytes and then the UTF-8 bytes of the message. Whether messages may be
+ * compressed is negotiated once per connection when it is opened. If so,
+ * messages of at least {@code COMPRESSION_THRESHOLD} bytes are deflated.
+ * <p>
+ * The deflater and inflater live for as long as the connection does and are
+ * sync-flushed after every message, so each message is compressed against
+ * all the previously compressed ones (and a dictionary of the text that
+ * {@code MessageFormatter} repeats on every line).
+ */
+public class MessageCodec {
+
+    private static final int FRAME_RAW = 0;
+    private static final int FRAME_DEFLATED = 1;
+
+    private static final int COMPRESSION_THRESHOLD = 32;       // Bytes
+    private static final int INITIAL_BUFFER_SIZE = 256;        // Bytes
+    private static final int MAX_RETAINED_BUFFER_SIZE = 16384; // Bytes
+    private static final int MAX_MESSAGE_LENGTH = 1024 * 1024; // Bytes
+    private static final int MAX_COMPRESSED_LENGTH = MAX_MESSAGE_LENGTH + MAX_MESSAGE_LENGTH / 8;
+
+    private static final byte[] DICTIONARY = (
+        "\033[m\n" + "\033[1;37m[SERVER]: " + "\033[31m" + " has left the chat" +
+        "\033[32m" + " has joined the chat" + "\033[33m" + " has whispered: " +
+        "connected users: " + "no user with username: " + "unknown command: " +
+        "]: "
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private DataInputStream input;
+    private DataOutputStream output;
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] readBuffer;
+    private byte[] inflateBuffer;
+    private byte[] deflateBuffer;
+    private boolean closed;
+
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+
+    /**
+     * Constructs a new instance of the {@code MessageCodec}.
+     *
+     * @param input    The stream to read messages from.
+     * @param output   The stream to write messages to.
+     * @param compress A flag indicating whether messages may be compressed.
+     */
+    private MessageCodec(InputStream input, OutputStream output, boolean compress) {
+        this.input = new DataInputStream(input);
+        this.output = new DataOutputStream(new BufferedOutputStream(output));
+        this.readBuffer = new byte[INITIAL_BUFFER_SIZE];
+        this.inflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+        this.deflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+        this.closed = false;
+
+        if (compress) {
+            this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            this.inflater = new Inflater(true);
+            deflater.setDictionary(DICTIONARY);
+            inflater.setDictionary(DICTIONARY);
+        }
+    }
+
+    /**
+     * Opens the client's side of a connection: requests compression from the
+     * server if {@code compress} is set and waits for the server's answer.
+     *
+     * @param input    The stream to read messages from.
+     * @param output   The stream to write messages to.
+     * @param compress A flag indicating whether compression is requested.
+     *
+     * @return The codec for the connection.
+     *
+     * @throws IOException - If an I/O error occurs.
+     */
+    public static MessageCodec connect(InputStream input, OutputStream output, boolean compress) throws IOException {
+        output.write(compress ? 1 : 0);
+        output.flush();
+
+        final int answer = input.read();
+        if (answer < 0) {
+            throw new IOException("connection closed during handshake");
+        }
+
+        return new MessageCodec(input, output, answer == 1);
+    }
+
+    /**
+     * Opens the server's side of a connection: reads whether the client wants
+     * compression and answers whether it will be used.
+     *
+     * @param input    The stream to read messages from.
+     * @param output   The stream to write messages to.
+     * @param compress A flag indicating whether the server allows compression.
+     *
+     * @return The codec for the connection.
+     *
+     * @throws IOException - If an I/O error occurs.
+     */
+    public static MessageCodec accept(InputStream input, OutputStream output, boolean compress) throws IOException {
+        final int request = input.read();
+        if (request < 0) {
+            throw new IOException("connection closed during handshake");
+        }
+
+        final boolean agreed = compress && request == 1;
+        output.write(agreed ? 1 : 0);
+        output.flush();
+
+        return new MessageCodec(input, output, agreed);
+    }
+
+    /**
+     * Checks whether {@code message} is short enough to be sent as a single
+     * frame.
+     *
+     * @param message The message to check.
+     *
+     * @return {@code true} if {@code writeMessage} will accept the message.
+     */
+    public static boolean fits(String message) {
+        // UTF-8 never takes more than three bytes per char, so the encoding
+        // can be skipped for all but the longest messages.
+        if ((long) message.length() * 3 <= MAX_MESSAGE_LENGTH) {
+            return true;
+        }
+
+        return message.getBytes(StandardCharsets.UTF_8).length <= MAX_MESSAGE_LENGTH;
+    }
+
+    /**
+     * Writes {@code message} as a single frame.
+     *
+     * @param message The message to write.
+     *
+     * @throws IOException - If an I/O error occurs or the message is too long.
+     */
+    public void writeMessage(String message) throws IOException {
+        final byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_MESSAGE_LENGTH) {
+            throw new IOException(String.format("message too long: %d bytes", bytes.length));
+        }
+
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IOException("codec closed");
+            }
+
+            try {
+                if (deflater != null && bytes.length >= COMPRESSION_THRESHOLD) {
+                    final int length = deflate(bytes);
+
+                    output.writeByte(FRAME_DEFLATED);
+                    output.writeInt(bytes.length);
+                    output.writeInt(length);
+                    output.write(deflateBuffer, 0, length);
+                } else {
+                    output.writeByte(FRAME_RAW);
+                    output.writeInt(bytes.length);
+                    output.write(bytes);
+                }
+                output.flush();
+            } finally {
+                deflateBuffer = release(deflateBuffer);
+            }
+        }
+    }
+
+    /**
+     * Reads the next message, blocking until a whole frame has arrived.
+     *
+     * @return The message read.
+     *
+     * @throws IOException - If an I/O error occurs or the frame is malformed.
+     */
+    public String readMessage() throws IOException {
+        synchronized (readLock) {
+            if (closed) {
+                throw new IOException("codec closed");
+            }
+
+            try {
+                final int flag = input.readUnsignedByte();
+                final int length = readLength(MAX_MESSAGE_LENGTH);
+
+                if (flag == FRAME_RAW) {
+                    readBuffer = ensureCapacity(readBuffer, length);
+                    input.readFully(readBuffer, 0, length);
+
+                    return new String(readBuffer, 0, length, StandardCharsets.UTF_8);
+                } else if (flag == FRAME_DEFLATED && inflater != null) {
+                    final int compressedLength = readLength(MAX_COMPRESSED_LENGTH);
+                    readBuffer = ensureCapacity(readBuffer, compressedLength);
+                    input.readFully(readBuffer, 0, compressedLength);
+                    inflate(compressedLength, length);
+
+                    return new String(inflateBuffer, 0, length, StandardCharsets.UTF_8);
+                }
+
+                throw new IOException(String.format("unexpected frame type: %d", flag));
+            } finally {
+                readBuffer = release(readBuffer);
+                inflateBuffer = release(inflateBuffer);
+            }
+        }
+    }
+
+
+    /**
+     * Releases the deflater and inflater of this codec.
+     * <p>
+     * The underlying streams are not closed. Close those first so that a
+     * blocked reader is woken up.
+     */
+    public void close() {
+        synchronized (writeLock) {
+            synchronized (readLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+
+                if (deflater != null) {
+                    deflater.end();
+                    inflater.end();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deflates {@code bytes} into {@code deflateBuffer}, followed by a sync
+     * flush so the peer can inflate the whole message immediately.
+     *
+     * @param bytes The bytes to deflate.
+     *
+     * @return The number of bytes written to {@code deflateBuffer}.
+     */
+    private int deflate(byte[] bytes) {
+        // Room for incompressible input plus block headers and the flush
+        // marker, so a large message is deflated without regrowing.
+        deflateBuffer = ensureCapacity(deflateBuffer, bytes.length + (bytes.length >> 10) + 64);
+        deflater.setInput(bytes);
+
+        int length = 0;
+        while (true) {
+            final int space = deflateBuffer.length - length;
+            final int written = deflater.deflate(deflateBuffer, length, space, Deflater.SYNC_FLUSH);
+            length += written;
+
+            if (written < space) {
+                return length;
+            }
+            deflateBuffer = ensureCapacity(deflateBuffer, deflateBuffer.length * 2);
+        }
+    }
+
+    /**
+     * Inflates the first {@code compressedLength} bytes of {@code readBuffer}
+     * into {@code inflateBuffer}.
+     *
+     * @param compressedLength The number of compressed bytes.
+     * @param length           The expected number of inflated bytes.
+     *
+     * @throws IOException - If the compressed bytes are malformed.
+     */
+    private void inflate(int compressedLength, int length) throws IOException {
+        // One spare byte, so that the trailing sync-flush marker is always
+        // consumed and never discarded along with the input.
+        inflateBuffer = ensureCapacity(inflateBuffer, length + 1);
+        inflater.setInput(readBuffer, 0, compressedLength);
+
+        int inflated = 0;
+        try {
+            while (!inflater.needsInput()) {
+                final int remaining = inflater.getRemaining();
+                final int count = inflater.inflate(inflateBuffer, inflated, inflateBuffer.length - inflated);
+                inflated += count;
+
+                if (inflated > length || (count == 0 && inflater.getRemaining() == remaining)) {
+                    throw new IOException("malformed compressed frame");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("malformed compressed frame", e);
+        }
+
+        if (inflated != length) {
+            throw new IOException("malformed compressed frame");
+        }
+    }
+
+    /**
+     * Reads a frame length and checks that it is within bounds.
+     *
+     * @param max The largest length allowed.
+     *
+     * @return The length read.
+     *
+     * @throws IOException - If an I/O error occurs or the length is invalid.
+     */
+    private int readLength(int max) throws IOException {
+        final int length = input.readInt();
+        if (length < 0 || length > max) {
+            throw new IOException(String.format("invalid frame length: %d", length));
+        }
+
+        return length;
+    }
+
+    /**
+     * Gets {@code buffer}, or a larger copy of it if it cannot hold
+     * {@code capacity} bytes. The contents of {@code buffer} are kept.
+     * <p>
+     * Buffers grow by doubling up to {@code MAX_RETAINED_BUFFER_SIZE}. Beyond
+     * that they are sized exactly, since {@code release} drops them again
+     * after the frame.
+     *
+     * @param buffer   The buffer to check.
+     * @param capacity The number of bytes the buffer has to hold.
+     *
+     * @return A buffer of at least {@code capacity} bytes.
+     */
+    private static byte[] ensureCapacity(byte[] buffer, int capacity) {
+        if (buffer.length >= capacity) {
+            return buffer;
+        }
+
+        int size = buffer.length;
+        while (size < capacity && size < MAX_RETAINED_BUFFER_SIZE) {
+            size *= 2;
+        }
+
+        return Arrays.copyOf(buffer, Math.max(size, capacity));
+    }
+
+    /**
+     * Gets {@code buffer}, or a new small buffer if {@code buffer} grew past
+     * {@code MAX_RETAINED_BUFFER_SIZE} for a large frame. This keeps a single
+     * large paste from pinning megabytes for every connection it reached.
+     *
+     * @param buffer The buffer used for the last frame.
+     *
+     * @return The buffer to keep for the next frame.
+     */
+    private static byte[] release(byte[] buffer) {
+        if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            return new byte[INITIAL_BUFFER_SIZE];
+        }
+
+        return buffer;
+    }
+}
@@ -4,15 +4,11 @@
  * Server.java
  */
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 
-import java.net.ServerSocket;
-import java.net.Socket;
-
-import java.util.HashMap;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -23,82 +19,141 @@ import java.util.concurrent.Executors;
  */
 public class Server implements Runnable {
 
-    private ServerSocket serverSocket;
+    private ConnectionListener listener;
     private ServerInput serverInput;
-    private HashMap<String, ClientHandler> clients;
+    private ConcurrentHashMap<String, ClientHandler> clients;
     private ExecutorService threadPool;
+    private boolean compress;
 
     /**
      * Constructs an instance of the server and also starts the server.
      * <p>
      * The server is opened on port 6666 always.
+     * 
+     * @param compress A flag indicating whether clients may compress their
+     * messages.
      */
-    public Server() {
+    public Server(boolean compress) {
+        this(openListener(6666), compress);
+
+        System.out.printf("server is open on port %d\n", 6666);
+        threadPool.execute(serverInput);
+    }
+
+    /**
+     * Constructs an instance of the server that accepts its clients from
+     * {@code listener}.
+     * <p>
+     * No input is read from {@code System.in}. Use {@code close} to terminate
+     * the server instead.
+     * 
+     * @param listener The listener to accept clients from.
+     * @param compress A flag indicating whether clients may compress their
+     * messages.
+     */
+    public Server(ConnectionListener listener, boolean compress) {
+        this.listener = listener;
+        this.serverInput = new ServerInput();
+        this.clients = new ConcurrentHashMap<String, ClientHandler>();
+        this.threadPool = Executors.newCachedThreadPool();
+        this.compress = compress;
+    }
+
+    /**
+     * Opens a {@code SocketListener} on {@code port}. The program exits if
+     * the port could not be opened.
+     * 
+     * @param port The port to open the listener on.
+     * 
+     * @return The opened listener.
+     */
+    private static ConnectionListener openListener(int port) {
         try {
-            this.serverSocket = new ServerSocket(6666);
+            return new SocketListener(port);
         } catch (IOException e) {
             System.err.println("server could not be opened");
             System.exit(1);
+            return null;
         }
-
-        this.serverInput = new ServerInput();
-        this.clients = new HashMap<String, ClientHandler>();
-        this.threadPool = Executors.newCachedThreadPool();
-
-        System.out.printf("server is open on port %d\n", 6666);
-        threadPool.execute(serverInput);
     }
 
     /**
      * Actively listens for any incoming connections from clients to the server
      * <p>
-     * This will terminate once the server socket has been closed.
+     * This will terminate once the listener has been closed.
      */
     @Override
     public void run() {
-        while (!serverSocket.isClosed()) {
+        while (!listener.isClosed()) {
             try {
-                final Socket socket = serverSocket.accept();
-                final ClientHandler handler = new ClientHandler(socket);
+                final Connection connection = listener.accept();
 
+                ClientHandler handler = null;
                 try {
+                    handler = new ClientHandler(connection);
+
                     String username = handler.promptUserName();
                     while (clients.containsKey(username)) {
                         handler.sendMessage(String.format("%s already exists\n", username));
                         username = handler.promptUserName();
                     }
 
-                    threadPool.execute(handler);
                     clients.put(username, handler);
+                    threadPool.execute(handler);
 
                     final String joinMessage = MessageFormatter.joinMessage(username);
                     broadcast(username, joinMessage, false);
                 } catch (IOException e) {
-                    System.err.println("error occured whilst prompting for username");
+                    System.err.println("error occured whilst registering client");
+                    abandonConnection(connection, handler);
                 }
             } catch (IOException e) {
-                System.err.println("failed accepting incoming client. server socket closed?");
-                System.exit(0);
+                if (listener.isClosed()) {
+                    return;
+                }
+
+                System.err.println("failed accepting incoming client");
+                System.exit(1);
             }
         }
     }
 
     /**
-     * Closes all sockets from the clients in {@code clients} and also closes
-     * the server socket.
+     * Closes a {@code connection} whose client failed to register, so that
+     * the client is not left waiting and the connection is not leaked.
+     * 
+     * @param connection The connection to close.
+     * @param handler    The handler created for the connection, or
+     * {@code null} if the handshake failed.
+     */
+    private void abandonConnection(Connection connection, ClientHandler handler) {
+        try {
+            if (handler != null) {
+                handler.close();
+            } else {
+                connection.close();
+            }
+        } catch (IOException e) {
+            System.err.println("failed to close connection of unregistered client");
+        }
+    }
+
+    /**
+     * Closes all connections to the clients in {@code clients} and also
+     * closes the listener.
      * <p>
      * This should, in theory, terminate the server.
      */
-    private void close() {
+    public void close() {
         for (final ClientHandler client : clients.values()) {
             disconnectClient(client, false);
         }
         clients.clear();
 
         try {
-            serverSocket.close();
+            listener.close();
         } catch (IOException e) {
-            System.err.println("failed to close server socket");
+            System.err.println("failed to close listener");
         }
 
         System.out.println("server terminated");
@@ -133,7 +188,7 @@ public class Server implements Runnable {
                 try {
                     client.sendMessage(message);
                 } catch (IOException e) {
-                    System.err.printf("failed to send message (\"%s\") to %s, from %s\n", message, client.getUserName(), username);
+                    System.err.printf("failed to send message to %s, from %s\n", client.getUserName(), username);
                 }
             }
         }
@@ -179,9 +234,14 @@ public class Server implements Runnable {
                 builder.append(' ');
             }
             final String message = builder.toString();
+            final String whisperMessage = MessageFormatter.whisperMessage(from.getUserName(), message);
+            if (!MessageCodec.fits(whisperMessage)) {
+                rejectMessage(from);
+                return;
+            }
 
             try {
-                reciever.sendMessage(MessageFormatter.whisperMessage(from.getUserName(), message));
+                reciever.sendMessage(whisperMessage);
             } catch (IOException e) {
                 System.err.printf("failed to whisper to %s from %s\n", reciever.getUserName(), from.getUserName());
             }
@@ -211,27 +271,50 @@ public class Server implements Runnable {
         }
     }
 
+    /**
+     * Tells {@code from} that its message is too long to be sent on once the
+     * server has formatted it.
+     * 
+     * @param from The client whose message was rejected.
+     */
+    private void rejectMessage(ClientHandler from) {
+        try {
+            from.sendMessage("message too long\n");
+        } catch (IOException e) {
+            System.err.printf("failed to reject message from %s\n", from.getUserName());
+        }
+    }
+
     /**
      * Disconnects {@code client} from the server.
+     * <p>
+     * The client is closed and its leave message broadcast even if the
+     * client has already gone away and the "/close" cannot be forwarded.
      * 
      * @param client The client to disconnect from the server.
      * @param remove A flag indicating whether or not the client should be
-     * removed from the {@code clients} HashMap.
+     * removed from the {@code clients} map.
      */
     private void disconnectClient(ClientHandler client, boolean remove) {
         final String userName = client.getUserName();
+        if (remove && !clients.remove(userName, client)) {
+            return; // already disconnected
+        }
+
         try {
-            if (remove) {
-                clients.remove(userName);
-            }
             client.sendMessage("/close"); // forward disconnect command
-            client.close();
+        } catch (IOException e) {
+            // the client closed its end first; nothing left to tell it
+        }
 
-            final String disconnectMessage = MessageFormatter.leaveMessage(userName);
-            broadcast(userName, disconnectMessage, false);
+        try {
+            client.close();
         } catch (IOException e) {
             System.err.printf("failed to disconnect %s from the server\n", userName);
         }
+
+        final String disconnectMessage = MessageFormatter.leaveMessage(userName);
+        broadcast(userName, disconnectMessage, false);
     }
 
     /**
@@ -282,23 +365,23 @@ public class Server implements Runnable {
      */
     private class ClientHandler implements Runnable {
 
-        private Socket socket;
-        private DataInputStream input;
-        private DataOutputStream output;
+        private Connection connection;
+        private MessageCodec codec;
         private String userName;
 
         /**
          * Constructs a new instance of a {@code ClientHandler} and then opens
          * the input- and outputstreams for the server to communicate with.
+         * <p>
+         * Whether the client's messages are compressed is negotiated here.
          * 
-         * @param socket The connected client socket.
+         * @param connection The connection to the client.
          * 
          * @throws IOException - If and I/O error occurs.
          */
-        public ClientHandler(Socket socket) throws IOException {
-            this.socket = socket;
-            this.input = new DataInputStream(socket.getInputStream());
-            this.output = new DataOutputStream(socket.getOutputStream());
+        public ClientHandler(Connection connection) throws IOException {
+            this.connection = connection;
+            this.codec = MessageCodec.accept(connection.getInputStream(), connection.getOutputStream(), compress);
             this.userName = null;
         }
 
@@ -311,7 +394,7 @@ public class Server implements Runnable {
          */
         public String promptUserName() throws IOException {
             sendMessage("Enter a username: ");
-            this.userName = input.readUTF();
+            this.userName = codec.readMessage();
 
             return userName;
         }
@@ -324,20 +407,21 @@ public class Server implements Runnable {
          * @throws IOException - If and I/O error occurs.
          */
         public void sendMessage(String message) throws IOException {
-            if (!socket.isClosed()) {
-                output.writeUTF(message);
+            if (!connection.isClosed()) {
+                codec.writeMessage(message);
             }
         }
 
         /**
-         * Closes the socket of this client.
+         * Closes the connection and codec of this client.
          * 
          * @throws IOException - If an I/O error occurs.
          */
         public void close() throws IOException {
-            if (!socket.isClosed()) {
-                socket.close();
+            if (!connection.isClosed()) {
+                connection.close();
             }
+            codec.close();
         }
 
         /**
@@ -352,24 +436,37 @@ public class Server implements Runnable {
         /**
          * Actively listens for any incoming messages from this client.
          * <p>
-         * This will run until this client's socket is closed.
+         * This will run until this client's connection is closed. Reading
+         * blocks until a message arrives rather than polling, so idle clients
+         * cost no CPU.
          */
         @Override
         public void run() {
-            while (!socket.isClosed()) {
+            while (!connection.isClosed()) {
                 try {
-                    if (input.available() > 0) {
-                        final String message = input.readUTF();
-                        if (message.startsWith("/")) {
-                            handleCommand(message, this);
-                        } else {
-                            final String globalMessage = MessageFormatter.globalMessage(userName, message);
+                    final String message = codec.readMessage();
+                    if (message.startsWith("/")) {
+                        handleCommand(message, this);
+                    } else {
+                        final String globalMessage = MessageFormatter.globalMessage(userName, message);
+                        if (MessageCodec.fits(globalMessage)) {
                             broadcast(userName, globalMessage, false);
+                        } else {
+                            rejectMessage(this);
                         }
                     }
+                } catch (EOFException e) {
+                    // the client closed its end without "/quit"
+                    if (!connection.isClosed()) {
+                        disconnectClient(this, true);
+                    }
+                    return;
                 } catch (IOException e) {
-                    System.err.println("failed recieving bytes from client input stream");
-                    disconnectClient(this, true);
+                    if (!connection.isClosed()) {
+                        System.err.println("failed recieving bytes from client input stream");
+                        disconnectClient(this, true);
+                    }
+                    return;
                 }
             }
         }
@@ -378,11 +475,15 @@ public class Server implements Runnable {
     /**
      * Main routine for the server. This serves as the entry point of the
      * server program.
+     * <p>
+     * Passing {@code --no-compress} refuses compression to all clients.
      * 
      * @param args Arguments passed via the command-line.
      */
     public static void main(String[] args) {
-        final Server server = new Server();
+        final boolean compress = !(args.length > 0 && args[0].equals("--no-compress"));
+        final Server server = new Server(compress);
         server.run();
+        System.exit(0);
     }
 }
\ No newline at end of file
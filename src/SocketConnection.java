@@ -0,0 +1,61 @@
+/**
+ * @author Ruan C. Keet (26340461)
+ * SocketConnection.java
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.net.Socket;
+
+/**
+ * This class is a {@code Connection} over a TCP socket.
+ *
+ * @see Connection
+ */
+public class SocketConnection implements Connection {
+
+    private Socket socket;
+
+    /**
+     * Constructs a new instance of the {@code SocketConnection}.
+     *
+     * @param socket The connected socket.
+     */
+    public SocketConnection(Socket socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Connects to the server at {@code host} on {@code port}.
+     *
+     * @param host The host name of the server.
+     * @param port The port the server is open on.
+     *
+     * @throws IOException - If the connection could not be made.
+     */
+    public SocketConnection(String host, int port) throws IOException {
+        this(new Socket(host, port));
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * @author Ruan C. Keet (26340461)
+ * SocketListener.java
+ */
+
+import java.io.IOException;
+
+import java.net.ServerSocket;
+
+/**
+ * This class is a {@code ConnectionListener} accepting TCP connections.
+ *
+ * @see ConnectionListener
+ */
+public class SocketListener implements ConnectionListener {
+
+    private ServerSocket serverSocket;
+
+    /**
+     * Constructs a new instance of the {@code SocketListener} and opens it on
+     * {@code port}.
+     *
+     * @param port The port to listen on.
+     *
+     * @throws IOException - If the port could not be opened.
+     */
+    public SocketListener(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        return new SocketConnection(serverSocket.accept());
+    }
+
+    @Override
+    public boolean isClosed() {
+        return serverSocket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * @author Ruan C. Keet (26340461)
+ * SpscByteQueue.java
+ */
+
+import java.io.IOException;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is a bounded ring buffer of bytes for exactly one producer
+ * thread and one consumer thread at a time.
+ * <p>
+ * The producer only ever writes {@code tail} and the consumer only ever
+ * writes {@code head}, so no locks are needed. A thread only parks when the
+ * queue is full (producer) or empty (consumer), after spinning briefly.
+ */
+public class SpscByteQueue {
+
+    private static final int SPIN_LIMIT = 128;
+
+    private final byte[] buffer;
+    private final int mask;
+
+    private volatile long head;              // Next position to read
+    private volatile long tail;              // Next position to write
+    private long cachedHead;                 // Producer's last view of head
+    private long cachedTail;                 // Consumer's last view of tail
+
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new instance of the {@code SpscByteQueue}.
+     *
+     * @param capacity The number of bytes the queue can hold. This is rounded
+     * up to the next power of two.
+     */
+    public SpscByteQueue(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException(String.format("invalid capacity: %d", capacity));
+        }
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.buffer = new byte[size];
+        this.mask = buffer.length - 1;
+    }
+
+    /**
+     * Writes all {@code len} bytes of {@code b} from {@code off}, blocking
+     * whilst the queue is full.
+     * <p>
+     * This may only be called by the producer thread.
+     *
+     * @param b   The bytes to write.
+     * @param off The offset in {@code b} to start from.
+     * @param len The number of bytes to write.
+     *
+     * @throws IOException - If the queue is closed.
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (closed) {
+                throw new IOException("queue closed");
+            }
+
+            final long position = tail;
+            int free = buffer.length - (int) (position - cachedHead);
+            if (free == 0) {
+                cachedHead = head;
+                free = buffer.length - (int) (position - cachedHead);
+                if (free == 0) {
+                    awaitSpace(position);
+                    continue;
+                }
+            }
+
+            final int count = Math.min(len, free);
+            copyIn(b, off, (int) position & mask, count);
+            tail = position + count;
+
+            off += count;
+            len -= count;
+            wake(waitingConsumer);
+        }
+    }
+
+    /**
+     * Reads up to {@code len} bytes into {@code b} from {@code off}, blocking
+     * until at least one byte is available.
+     * <p>
+     * This may only be called by the consumer thread.
+     *
+     * @param b   The buffer to read into.
+     * @param off The offset in {@code b} to start from.
+     * @param len The maximum number of bytes to read.
+     *
+     * @return The number of bytes read, or {@code -1} if the queue is closed
+     * and empty.
+     */
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+
+        final long position = head;
+        int count;
+        while ((count = (int) (cachedTail - position)) == 0) {
+            cachedTail = tail;
+            if (cachedTail != position) {
+                continue;
+            }
+
+            if (closed) {
+                // The producer may have written just before closing.
+                cachedTail = tail;
+                if (cachedTail == position) {
+                    return -1;
+                }
+                continue;
+            }
+            awaitData(position);
+        }
+
+        count = Math.min(len, count);
+        copyOut(b, off, (int) position & mask, count);
+        head = position + count;
+
+        wake(waitingProducer);
+        return count;
+    }
+
+    /**
+     * Gets the number of bytes that can be read without blocking.
+     *
+     * @return The number of bytes in the queue.
+     */
+    public int available() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * Closes the queue. Bytes already written can still be read, after which
+     * {@code read} returns {@code -1}. Further writes fail.
+     */
+    public void close() {
+        closed = true;
+        wake(waitingProducer);
+        wake(waitingConsumer);
+    }
+
+    /**
+     * Checks whether the queue has been closed.
+     *
+     * @return {@code true} if {@code close} has been called.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Waits until the consumer has moved {@code head} or the queue is closed.
+     *
+     * @param position The producer's current {@code tail}.
+     */
+    private void awaitSpace(long position) {
+        for (int i = 0; i < SPIN_LIMIT; i++) {
+            if (position - head < buffer.length || closed) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+
+        // Publish the waiter before checking again, so that a consumer moving
+        // head right now is guaranteed to see it and unpark us.
+        waitingProducer = Thread.currentThread();
+        if (position - head == buffer.length && !closed) {
+            LockSupport.park(this);
+        }
+        waitingProducer = null;
+    }
+
+    /**
+     * Waits until the producer has moved {@code tail} or the queue is closed.
+     *
+     * @param position The consumer's current {@code head}.
+     */
+    private void awaitData(long position) {
+        for (int i = 0; i < SPIN_LIMIT; i++) {
+            if (tail != position || closed) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+
+        waitingConsumer = Thread.currentThread();
+        if (tail == position && !closed) {
+            LockSupport.park(this);
+        }
+        waitingConsumer = null;
+    }
+
+    /**
+     * Unparks {@code thread} if it is waiting.
+     *
+     * @param thread The waiting thread, or {@code null}.
+     */
+    private static void wake(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Copies {@code count} bytes from {@code b} into the ring buffer at
+     * {@code index}, wrapping around the end of the buffer.
+     */
+    private void copyIn(byte[] b, int off, int index, int count) {
+        final int first = Math.min(count, buffer.length - index);
+        System.arraycopy(b, off, buffer, index, first);
+        System.arraycopy(b, off + first, buffer, 0, count - first);
+    }
+
+    /**
+     * Copies {@code count} bytes from the ring buffer at {@code index} into
+     * {@code b}, wrapping around the end of the buffer.
+     */
+    private void copyOut(byte[] b, int off, int index, int count) {
+        final int first = Math.min(count, buffer.length - index);
+        System.arraycopy(buffer, index, b, off, first);
+        System.arraycopy(buffer, 0, b, off + first, count - first);
+    }
+}